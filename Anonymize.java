@@ -4,8 +4,11 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.PrintStream;
+import java.util.Arrays;
 import java.util.Enumeration;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.Scanner;
 import java.util.logging.Level;
@@ -28,6 +31,10 @@ import weka.filters.unsupervised.instance.RemoveWithValues;
  * Anonymize takes an arff file and performs the datafly algorithm to achieve 
  *  k-anonymity 
  * 
+ * Optionally the values of a sensitive attribute can also be required to be
+ *  l-diverse and t-close within every quasi id. These are checked on the
+ *  sensitive value histograms counted along with the quasi id frequencies.
+ * 
  * 
  * Datafly Algorithm: mention by L. Sweeney in his paper 
  *  "Achieving k-anonymity privacy protection using generalization and sup-
@@ -56,6 +63,49 @@ public class Anonymize {
     private int k_anonymity_constant;
     //a predefined value of k in k-anonymity
     private static final int K = 50;
+    //cut points that moved less than this fraction of their range are 
+    //considered unchanged since the cached run
+    private static final double CUT_POINT_TOLERANCE = 0.05;
+    //number of records read from the arff file
+    private int numInputRecords;
+    //number of datafly iterations used to achieve k-anonymity
+    private int iterationCount;
+    //number of records suppressed by datafly
+    private int suppressedRecords;
+    //index of the copy of each quasi attribute in the current instances
+    private int[] quasiIndices;
+    //builds the quasi id keys for the current copies of the quasi attributes
+    private QuasiKeyEncoder quasiKeys;
+    //sorted distinct values of each numeric quasi copy, null if nominal
+    private double[][] quasiNumericValues;
+    //the default sensitive attribute
+    private static final String SENSITIVE = "DonorCode";
+    //attribute whose values must be diverse within each quasi id
+    private String sensitiveAttribute;
+    //the l in the l-diversity, 1 if not required
+    private int l_diversity_constant;
+    //measure l-diversity by entropy instead of distinct values
+    private boolean entropyDiversity;
+    //the t in the t-closeness, 1 if not required
+    private double t_closeness_constant;
+    //index of the sensitive attribute in the current instances
+    private int sensitiveIndex;
+    //codes of the values of a numeric sensitive attribute
+    private HashMap<Double, Integer> sensitiveCodes;
+    //histogram of the sensitive values over the whole data set
+    private int[] sensitiveHistogram;
+    //generalizations of earlier runs, null if not used
+    private GeneralizationCache generalizationCache;
+    //where the progress of the run is printed
+    private PrintStream out;
+    //number of bins of each generalized quasi attribute
+    private LinkedHashMap<String, Integer> appliedBins;
+    //equal frequency cut points of each generalized quasi attribute
+    private HashMap<String, double[]> cutPoints;
+    //quasi attribute generalized by each datafly step
+    private LinkedList<String> stepAttributes;
+    //number of bins of each datafly step
+    private LinkedList<Integer> stepBins;
     
     /**
      * Constructor 
@@ -84,6 +134,59 @@ public class Anonymize {
         this.secureAttributes = new LinkedList<String>();
         this.attributeNames = new LinkedList<String>();
         wekaAttributes = new FastVector();
+        this.sensitiveAttribute = SENSITIVE;
+        this.l_diversity_constant = 1;
+        this.t_closeness_constant = 1.0;
+        this.out = System.out;
+    }
+    
+    /**
+     * Sets the attribute checked by l-diversity and t-closeness
+     * 
+     * @param sensitiveAttribute name of the sensitive attribute
+     */
+    public void setSensitiveAttribute(String sensitiveAttribute) {
+        this.sensitiveAttribute = sensitiveAttribute;
+    }
+    
+    /**
+     * Requires the sensitive attribute to be l-diverse within every quasi id
+     * 
+     * @param l at least l distinct values, or an entropy of at least log(l)
+     * @param entropy use entropy l-diversity instead of distinct l-diversity
+     */
+    public void setLDiversity(int l, boolean entropy) {
+        this.l_diversity_constant = l;
+        this.entropyDiversity = entropy;
+    }
+    
+    /**
+     * Requires the distribution of the sensitive attribute within every quasi 
+     * id to be at most t away from its distribution in the whole data set
+     * 
+     * @param t maximum variational distance, between 0 and 1
+     */
+    public void setTCloseness(double t) {
+        this.t_closeness_constant = t;
+    }
+    
+    /**
+     * Starts datafly from the generalization cached by an earlier run on the 
+     * same schema and quasi ids, and caches the generalization of this run
+     * 
+     * @param cacheFile location of the cache file
+     */
+    public void setCacheFile(File cacheFile) {
+        this.generalizationCache = new GeneralizationCache(cacheFile);
+    }
+    
+    /**
+     * Sets where the progress of the run is printed, System.out by default
+     * 
+     * @param out stream for the progress messages
+     */
+    public void setOutput(PrintStream out) {
+        this.out = out;
     }
     
     /**
@@ -91,7 +194,7 @@ public class Anonymize {
      * the meta data and instances
      */
     public void readFile() {
-        System.out.print("Loading file... ");
+        out.print("Loading file... ");
         Scanner scanner = null;
         try {
             scanner = new Scanner(inFile);
@@ -136,7 +239,7 @@ public class Anonymize {
             } else if (tokens[0].equals("@secure")) {
                 // does the attribute exist?
                 if (!attributeNames.contains(tokens[1])) {
-                    System.out.println("Error - secure tag " + tokens[1] + 
+                    out.println("Error - secure tag " + tokens[1] + 
                             " does not match any attribute.");
                 } else {
                     secureAttributes.add(tokens[1]);
@@ -145,33 +248,47 @@ public class Anonymize {
         }
         //set class to the attribute before security code
         instances.setClassIndex(attributeNames.indexOf("SecurityCode") - 1);
-        System.out.println("Done.");
-        System.out.printf("There are %d instances in the original file\n",
-                instances.numInstances());
+        out.println("Done.");
+        numInputRecords = instances.numInstances();
+        out.printf("There are %d instances in the original file\n",
+                numInputRecords);
     }
     
     /**
      * Performs the data fly algorithm that provides k anonymity
+     *  When a generalization cache is set, starts from the cached 
+     *  generalization and saves the final one
      * @throws Exception generated by weka when using one of its filter
      */
     public void datafly() throws Exception {
-        System.out.println("Datafly - starting...");
-        System.out.printf("Trying to acheive %d anonymity\n",k_anonymity_constant);
+        out.println("Datafly - starting...");
+        out.printf("Trying to acheive %d anonymity\n",k_anonymity_constant);
+        int numSensitiveValues = 0;
+        if (tracksSensitiveValues()) {
+            numSensitiveValues = countSensitiveValues();
+        }
         //create copies of quais attributes
         copyAttributes(secureAttributes);
         //for each numeric quasi id, what is the current number of bins
         HashMap<String, Integer> attributeBins = new HashMap<String, Integer>();
         //stores the quais id set and their frequency in the data set
-        HashMap<String, Integer> quasiFreq = new HashMap<String, Integer>();
+        QuasiFrequencies quasiFreq = new QuasiFrequencies(
+                QuasiFrequencies.DEFAULT_SIZE, numSensitiveValues);
 
         // set up the initial bins to be the sqrt of the number of instnaces
         for (String attributeName : secureAttributes) {
             attributeBins.put(attributeName, 
                     (int) Math.sqrt(((double) instances.numInstances())));
         }
+        appliedBins = new LinkedHashMap<String, Integer>();
+        cutPoints = new HashMap<String, double[]>();
+        stepAttributes = new LinkedList<String>();
+        stepBins = new LinkedList<Integer>();
+        //start from the generalization of an earlier run
+        boolean warmStarted = warmStart(attributeBins);
         StringBuilder outputMessage=new StringBuilder();
         boolean done = false;
-        int iterationCount = 1;
+        iterationCount = 1;
         do {
             outputMessage.append(String.format("\t\tDatafly - iteration count: "
                     + "%d\n", iterationCount));
@@ -179,14 +296,9 @@ public class Anonymize {
             //calculate the frequncy of the quasi id in the data sets
             calculateQuasiFrequencies(quasiFreq);
             
-            int numRecords = 0;
-
-            //count the number of records that don't meet k anonymity
-            for (String key : quasiFreq.keySet()) {
-                if (quasiFreq.get(key) < k_anonymity_constant) {
-                    numRecords = numRecords + quasiFreq.get(key);
-                }
-            }
+            //count the number of records that don't meet k anonymity, or
+            //the l-diversity and t-closeness if required
+            int numRecords = countFailingRecords(quasiFreq);
             //if the number of records is <= the k constant
             if (numRecords <= k_anonymity_constant) {
                 done = true;
@@ -198,14 +310,10 @@ public class Anonymize {
             if (!done) {
                 String maxQuasiAttributeName = getAttributeWithMostDistinctValues();
 
-                // create a fresh copy
-                copyAttribute(maxQuasiAttributeName);
-
-                // grab the new copy, send it to be discretized
-                Attribute maxQuasiAttribute = instances.attribute("Copy of " + 
-                        maxQuasiAttributeName);
                 int bins = attributeBins.get(maxQuasiAttributeName);
-                DGHbinning(maxQuasiAttribute, bins);
+                generalize(maxQuasiAttributeName, bins);
+                stepAttributes.add(maxQuasiAttributeName);
+                stepBins.add(bins);
                 outputMessage.append(String.format("%s attribute has most "
                         + "distinct records. New Bin size:%d\n",
                         maxQuasiAttributeName,bins));
@@ -217,11 +325,23 @@ public class Anonymize {
             }
 
         } while (!done);
-        //suppress records that don't meet k anonymity
-        int suppressedRecords = suppressRecords(quasiFreq);
+        //the counter was advanced past the last iteration
+        iterationCount--;
+        if (warmStarted && iterationCount == 1) {
+            //the cached generalization may be more than this data needs
+            quasiFreq = stepBack(quasiFreq);
+        }
+        if (generalizationCache != null) {
+            generalizationCache.save(cacheKey(), appliedBins, cutPoints, 
+                    stepAttributes, stepBins);
+        }
+        out.printf("Datafly - %d passes\n", iterationCount);
+        //suppress records that don't meet k anonymity, l-diversity or 
+        //t-closeness
+        suppressedRecords = suppressRecords(quasiFreq);
         outputMessage.append(String.format("Suppresed Records: %d\n", 
                 suppressedRecords));
-        System.out.printf("Suppresed Records: %d\n", suppressedRecords); 
+        out.printf("Suppresed Records: %d\n", suppressedRecords); 
         //restore the relation name
         deleteOriginalColumns();
         //remove the secure attribute
@@ -230,25 +350,393 @@ public class Anonymize {
         instances.setRelationName(relationName);
         //print detailed log message
         //System.out.println(outputMessage.toString());
-        System.out.println("Datafly - ended...");
+        out.println("Datafly - ended...");
+    }
+
+    /**
+     * Discretize a fresh copy of a quasi attribute and record its cut points
+     * 
+     * @param attributeName quasi attribute to generalize
+     * @param bins number of bins
+     * @throws Exception if problem with binning
+     */
+    private void generalize(String attributeName, int bins) throws Exception {
+        // create a fresh copy
+        copyAttribute(attributeName);
+
+        // grab the new copy, send it to be discretized
+        Attribute copy = instances.attribute("Copy of " + attributeName);
+        cutPoints.put(attributeName, DGHbinning(copy, bins));
+        appliedBins.put(attributeName, bins);
+    }
+
+    /**
+     * Generalize the quasi attributes to the number of bins cached by an 
+     * earlier run on the same schema and quasi ids
+     * 
+     * @param attributeBins updated with the next number of bins of each 
+     *  generalized attribute
+     * @return was a cached generalization applied
+     * @throws Exception if problem with binning
+     */
+    private boolean warmStart(HashMap<String, Integer> attributeBins) 
+            throws Exception {
+        if (generalizationCache == null) {
+            return false;
+        }
+        LinkedHashMap<String, Integer> cachedBins = 
+                new LinkedHashMap<String, Integer>();
+        HashMap<String, double[]> cachedCutPoints = 
+                new HashMap<String, double[]>();
+        if (!generalizationCache.load(cacheKey(), cachedBins, cachedCutPoints,
+                stepAttributes, stepBins)) {
+            return false;
+        }
+        for (String attributeName : cachedBins.keySet()) {
+            int bins = cachedBins.get(attributeName);
+            generalize(attributeName, bins);
+            double moved = cutPointShift(cachedCutPoints.get(attributeName), 
+                    cutPoints.get(attributeName), valueRange(attributeName));
+            if (moved > CUT_POINT_TOLERANCE) {
+                out.printf("Cut points of %s moved by up to %.1f%% of "
+                        + "its range since the cached run\n", attributeName,
+                        moved * 100);
+            }
+            attributeBins.put(attributeName, (int) (bins * 0.9));
+        }
+        out.printf("Datafly - warm start from %d cached steps\n", 
+                stepAttributes.size());
+        return true;
+    }
+
+    /**
+     * How far the cut points of an attribute moved since the cached run
+     * 
+     * @param cached cut points of the cached run
+     * @param current cut points of this run
+     * @param range difference between the largest and smallest value of the 
+     *  attribute in this run
+     * @return largest move as a fraction of the range of the attribute, 1 if
+     *  the number of cut points changed
+     */
+    private static double cutPointShift(double[] cached, double[] current,
+            double range) {
+        if (cached == null || current == null 
+                || cached.length != current.length) {
+            return 1.0;
+        }
+        if (cached.length == 0) {
+            return 0.0;
+        }
+        double moved = 0;
+        for (int i = 0; i < cached.length; i++) {
+            moved = Math.max(moved, Math.abs(current[i] - cached[i]));
+        }
+        if (range <= 0) {
+            return moved > 0 ? 1.0 : 0.0;
+        }
+        return Math.min(1.0, moved / range);
+    }
+
+    /**
+     * @param attributeName name of a numeric attribute
+     * @return difference between its largest and smallest value, ignoring 
+     *  missing values
+     */
+    private double valueRange(String attributeName) {
+        int index = instances.attribute(attributeName).index();
+        double min = Double.POSITIVE_INFINITY;
+        double max = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < instances.numInstances(); i++) {
+            Instance instance = instances.instance(i);
+            if (!instance.isMissing(index)) {
+                min = Math.min(min, instance.value(index));
+                max = Math.max(max, instance.value(index));
+            }
+        }
+        return max > min ? max - min : 0.0;
+    }
+
+    /**
+     * Undo the generalization steps from the last one, as long as the finer 
+     * generalization still meets the criteria
+     * 
+     *  When the finer generalization fails, the coarser one is rebuilt by 
+     *  discretizing the attribute again, which gives the same bins and quasi 
+     *  id keys, so the data set doesn't have to be copied
+     * @param quasiFreq frequencies of the current generalization, which meets
+     *  the criteria
+     * @return frequencies of the final generalization
+     * @throws Exception if problem with binning
+     */
+    private QuasiFrequencies stepBack(QuasiFrequencies quasiFreq) 
+            throws Exception {
+        QuasiFrequencies finerFreq = new QuasiFrequencies(
+                QuasiFrequencies.DEFAULT_SIZE, quasiFreq.numSensitiveValues());
+        while (!stepAttributes.isEmpty()) {
+            String attributeName = stepAttributes.removeLast();
+            int bins = stepBins.removeLast();
+            
+            int previous = stepAttributes.lastIndexOf(attributeName);
+            if (previous < 0) {
+                copyAttribute(attributeName);
+                appliedBins.remove(attributeName);
+                cutPoints.remove(attributeName);
+            } else {
+                generalize(attributeName, stepBins.get(previous));
+            }
+            iterationCount++;
+            calculateQuasiFrequencies(finerFreq);
+            if (countFailingRecords(finerFreq) > k_anonymity_constant) {
+                //the frequencies of the coarser generalization still hold
+                generalize(attributeName, bins);
+                createQuasiKeyEncoder();
+                stepAttributes.add(attributeName);
+                stepBins.add(bins);
+                return quasiFreq;
+            }
+            out.printf("Datafly - stepped back %s to %s\n", 
+                    attributeName, previous < 0 ? "its original values" 
+                    : stepBins.get(previous) + " bins");
+            QuasiFrequencies passing = finerFreq;
+            finerFreq = quasiFreq;
+            quasiFreq = passing;
+        }
+        return quasiFreq;
+    }
+
+    /**
+     * The key of this run in the generalization cache, made of the schema, 
+     * the quasi ids and the privacy criteria
+     * 
+     * @return cache key
+     */
+    private String cacheKey() {
+        StringBuilder key = new StringBuilder();
+        for (int i = 0; i < wekaAttributes.size(); i++) {
+            Attribute a = (Attribute) wekaAttributes.elementAt(i);
+            key.append(a.name()).append(a.isNumeric() ? " numeric, " 
+                    : " nominal, ");
+        }
+        key.append("secure");
+        for (String attributeName : secureAttributes) {
+            key.append(' ').append(attributeName);
+        }
+        key.append(String.format(", k=%d, l=%d%s, t=%s, sensitive=%s", 
+                k_anonymity_constant, l_diversity_constant, 
+                entropyDiversity ? " entropy" : "", t_closeness_constant, 
+                sensitiveAttribute));
+        return key.toString();
+    }
+
+    /**
+     * @return are l-diversity or t-closeness required
+     */
+    private boolean tracksSensitiveValues() {
+        return l_diversity_constant > 1 || t_closeness_constant < 1.0;
     }
 
     /**
-     * Suppress records that don't meet k-anonymity
+     * Gives a code to each value of the sensitive attribute and builds its 
+     * histogram over the whole data set. Missing values get the last code
+     * 
+     * @return number of codes of the sensitive attribute
+     */
+    private int countSensitiveValues() {
+        Attribute a = instances.attribute(sensitiveAttribute);
+        if (a == null) {
+            throw new IllegalArgumentException("Sensitive attribute " + 
+                    sensitiveAttribute + " does not match any attribute.");
+        }
+        sensitiveIndex = a.index();
+        sensitiveCodes = new HashMap<Double, Integer>();
+        if (!a.isNominal()) {
+            for (Enumeration e = instances.enumerateInstances(); 
+                    e.hasMoreElements();) {
+                Instance instance = (Instance) e.nextElement();
+                if (instance.isMissing(a)) {
+                    continue;
+                }
+                Double value = QuasiKeyEncoder.canonical(instance.value(a));
+                if (!sensitiveCodes.containsKey(value)) {
+                    sensitiveCodes.put(value, sensitiveCodes.size());
+                }
+            }
+        }
+        //one more code for missing values
+        int numSensitiveValues = (a.isNominal() ? a.numValues() 
+                : sensitiveCodes.size()) + 1;
+        sensitiveHistogram = new int[numSensitiveValues];
+        for (Enumeration e = instances.enumerateInstances(); 
+                e.hasMoreElements();) {
+            sensitiveHistogram[getSensitiveCode((Instance) e.nextElement())]++;
+        }
+        //even a single group of all the records can't be diverse enough
+        int distinct = 0;
+        int present = 0;
+        double sumFLogF = 0;
+        for (int code = 0; code < numSensitiveValues - 1; code++) {
+            int frequency = sensitiveHistogram[code];
+            if (frequency > 0) {
+                distinct++;
+                present = present + frequency;
+                sumFLogF = sumFLogF + frequency * Math.log(frequency);
+            }
+        }
+        if (!isDiverse(distinct, present, sumFLogF)) {
+            throw new IllegalStateException(sensitiveAttribute + " is not " + 
+                    l_diversity_constant + " diverse over the whole data set.");
+        }
+        out.printf("Trying to acheive %d diversity and %.2f closeness "
+                + "of %s\n", l_diversity_constant, t_closeness_constant, 
+                sensitiveAttribute);
+        return numSensitiveValues;
+    }
+
+    /**
+     * Given an instance get the code of its sensitive value
+     * 
+     * @param instance Instance to get the sensitive value
+     * @return code of the sensitive value
+     */
+    private int getSensitiveCode(Instance instance) {
+        Attribute a = instances.attribute(sensitiveIndex);
+        if (instance.isMissing(a)) {
+            return sensitiveHistogram.length - 1;
+        }
+        if (!a.isNominal()) {
+            return sensitiveCodes.get(
+                    QuasiKeyEncoder.canonical(instance.value(a)));
+        }
+        return (int) instance.value(a);
+    }
+
+    /**
+     * Count the number of records whose quasi id doesn't meet k-anonymity, 
+     * l-diversity or t-closeness
+     * 
+     * @param quasiFreq frequencies and sensitive histograms of the quasi ids
+     * @return number of failing records
+     */
+    private int countFailingRecords(QuasiFrequencies quasiFreq) {
+        if (!tracksSensitiveValues()) {
+            return quasiFreq.recordsBelow(k_anonymity_constant);
+        }
+        boolean[] meets = evaluateCriteria(quasiFreq);
+        int numRecords = 0;
+        for (int slot = 0; slot < quasiFreq.capacity(); slot++) {
+            if (quasiFreq.isUsed(slot) && !meets[slot]) {
+                numRecords = numRecords + quasiFreq.countAt(slot);
+            }
+        }
+        return numRecords;
+    }
+
+    /**
+     * Checks every quasi id against k-anonymity and, if required, 
+     * l-diversity and t-closeness. The sensitive histograms are walked once,
+     * gathering for each group the statistics the criteria need
+     * 
+     * @param quasiFreq frequencies and sensitive histograms of the quasi ids
+     * @return for each slot, does its quasi id meet the criteria
+     */
+    private boolean[] evaluateCriteria(QuasiFrequencies quasiFreq) {
+        boolean[] meets = new boolean[quasiFreq.capacity()];
+        for (int slot = 0; slot < meets.length; slot++) {
+            meets[slot] = quasiFreq.isUsed(slot) 
+                    && quasiFreq.countAt(slot) >= k_anonymity_constant;
+        }
+        if (!tracksSensitiveValues()) {
+            return meets;
+        }
+        int numGroups = quasiFreq.size();
+        int[] groupSlots = new int[numGroups];
+        for (int slot = 0; slot < meets.length; slot++) {
+            if (quasiFreq.isUsed(slot)) {
+                groupSlots[quasiFreq.groupAt(slot)] = slot;
+            }
+        }
+        //statistics of the sensitive values of each group, missing values 
+        //don't count toward l-diversity
+        int[] distinct = new int[numGroups];
+        int[] present = new int[numGroups];
+        double[] sumFLogF = new double[numGroups];
+        //sum of |p - q| - q over the sensitive values found in each group
+        double[] closeness = new double[numGroups];
+        int missing = sensitiveHistogram.length - 1;
+        double total = instances.numInstances();
+        QuasiFrequencies pairs = quasiFreq.sensitivePairs();
+        for (int slot = 0; slot < pairs.capacity(); slot++) {
+            if (!pairs.isUsed(slot)) {
+                continue;
+            }
+            int group = QuasiFrequencies.pairGroup(pairs.keyAt(slot));
+            int code = QuasiFrequencies.pairCode(pairs.keyAt(slot));
+            int frequency = pairs.countAt(slot);
+            double q = sensitiveHistogram[code] / total;
+            closeness[group] = closeness[group] + Math.abs((double) frequency
+                    / quasiFreq.countAt(groupSlots[group]) - q) - q;
+            if (code != missing) {
+                distinct[group]++;
+                present[group] = present[group] + frequency;
+                sumFLogF[group] = sumFLogF[group] 
+                        + frequency * Math.log(frequency);
+            }
+        }
+        for (int group = 0; group < numGroups; group++) {
+            int slot = groupSlots[group];
+            //the values missing from the group add q each, summing to the 
+            //1 that completes the variational distance
+            meets[slot] = meets[slot] 
+                    && isDiverse(distinct[group], present[group], 
+                    sumFLogF[group])
+                    && (closeness[group] + 1) / 2 <= t_closeness_constant;
+        }
+        return meets;
+    }
+
+    /**
+     * Checks distinct or entropy l-diversity of the non missing sensitive 
+     * values of a group
+     * 
+     * @param distinct number of distinct sensitive values
+     * @param present number of records with a sensitive value
+     * @param sumFLogF sum of f * log(f) over the frequencies f of the values
+     * @return does the group have l well represented values
+     */
+    private boolean isDiverse(int distinct, int present, double sumFLogF) {
+        if (l_diversity_constant <= 1) {
+            return true;
+        }
+        if (entropyDiversity) {
+            if (present == 0) {
+                return false;
+            }
+            double entropy = Math.log(present) - sumFLogF / present;
+            //allow for rounding when the values are exactly uniform
+            return entropy >= Math.log(l_diversity_constant) - 1e-9;
+        }
+        return distinct >= l_diversity_constant;
+    }
+
+    /**
+     * Suppress records that don't meet k-anonymity, and l-diversity and 
+     * t-closeness if required
      * 
      * @param quasiFreq  set of quasi id nd their frequencies
      * @return number of suppressed records
      */
-    private int suppressRecords(HashMap<String, Integer> quasiFreq) {
+    private int suppressRecords(QuasiFrequencies quasiFreq) {
         // suppression
         int suppressedRecords = 0;
+        int[] codes = new int[quasiIndices.length];
+        boolean[] meets = evaluateCriteria(quasiFreq);
         for (Enumeration e = instances.enumerateInstances(); 
                 e.hasMoreElements();) {
             Instance instance = (Instance) e.nextElement();
-            String quasiId=getQuasiId(instance);
+            long quasiId = getQuasiKey(instance, codes);
             
-            Integer freq = quasiFreq.get(quasiId);
-            if (freq < k_anonymity_constant) {
+            if (!meets[quasiFreq.find(quasiId)]) {
                 instance.setClassMissing();
                 suppressedRecords = suppressedRecords + 1;
             }
@@ -282,39 +770,102 @@ public class Anonymize {
      * 
      * @param quasiFreq frequencies based on quasi id
      */
-    private void calculateQuasiFrequencies(HashMap<String, Integer> quasiFreq) {
+    private void calculateQuasiFrequencies(QuasiFrequencies quasiFreq) {
         // clear and update  freq of records based on quasi id
         quasiFreq.clear();
+        //the quasi id attributes changed since the last pass
+        createQuasiKeyEncoder();
+        if (quasiFreq.numSensitiveValues() > 0) {
+            sensitiveIndex = instances.attribute(sensitiveAttribute).index();
+        }
+        int[] codes = new int[quasiIndices.length];
         //for each instance in the dataset, calculate its quasi id and
         // update the frequncy count
         for (Enumeration e = instances.enumerateInstances(); 
                 e.hasMoreElements();) {
             Instance instance = (Instance) e.nextElement();
-            String quasiId = getQuasiId(instance);
-            //current frquency of the quasi id
-            Integer freq = quasiFreq.get(quasiId.toString());
-            if (freq == null) {
-                quasiFreq.put(quasiId.toString(), 1);
+            int slot = quasiFreq.add(getQuasiKey(instance, codes));
+            if (quasiFreq.numSensitiveValues() > 0) {
+                quasiFreq.addSensitive(slot, getSensitiveCode(instance));
+            }
+        }
+    }
+
+    /**
+     * Creates the encoder of the quasi ids for the current copies of the 
+     * quasi attributes. Nominal copies are coded by their value index, 
+     * numeric copies by the position of the value among their sorted 
+     * distinct values
+     */
+    private void createQuasiKeyEncoder() {
+        quasiIndices = new int[secureAttributes.size()];
+        quasiNumericValues = new double[quasiIndices.length][];
+        int[] cardinalities = new int[quasiIndices.length];
+        int i = 0;
+        for (String attributeName : secureAttributes) {
+            Attribute a = instances.attribute("Copy of " + attributeName);
+            quasiIndices[i] = a.index();
+            //one more code for missing values
+            if (a.isNominal()) {
+                cardinalities[i] = a.numValues() + 1;
             } else {
-                quasiFreq.put(quasiId.toString(), ++freq);
+                quasiNumericValues[i] = distinctValues(a.index());
+                cardinalities[i] = quasiNumericValues[i].length + 1;
+            }
+            i++;
+        }
+        quasiKeys = new QuasiKeyEncoder(cardinalities);
+    }
+
+    /**
+     * The sorted distinct values of a numeric attribute, without the missing
+     * values
+     * 
+     * @param index index of the attribute
+     * @return sorted distinct values
+     */
+    private double[] distinctValues(int index) {
+        double[] values = new double[instances.numInstances()];
+        int numValues = 0;
+        for (int j = 0; j < instances.numInstances(); j++) {
+            Instance instance = instances.instance(j);
+            if (!instance.isMissing(index)) {
+                values[numValues++] =
+                        QuasiKeyEncoder.canonical(instance.value(index));
             }
         }
+        Arrays.sort(values, 0, numValues);
+        int numDistinct = 0;
+        for (int j = 0; j < numValues; j++) {
+            if (numDistinct == 0 || values[j] != values[numDistinct - 1]) {
+                values[numDistinct++] = values[j];
+            }
+        }
+        return Arrays.copyOf(values, numDistinct);
     }
 
     /**
      * Given an instance get the quasi id of that instance
      * 
      * @param instance  Instance to get quasi id
-     * @return get quasi id string
+     * @param codes  buffer for the code of each quasi attribute
+     * @return get quasi id key
      */
-    private String getQuasiId(Instance instance) {
-        StringBuilder quasiset = new StringBuilder();
-        for (String attributeName : secureAttributes) {
-            int index = instances.attribute("Copy of " + attributeName).index();
-            Attribute a = instances.attribute(index);
-            quasiset.append(instance.value(a));
+    private long getQuasiKey(Instance instance, int[] codes) {
+        for (int i = 0; i < quasiIndices.length; i++) {
+            Attribute a = instances.attribute(quasiIndices[i]);
+            if (a.isNominal()) {
+                codes[i] = instance.isMissing(quasiIndices[i]) ? a.numValues()
+                        : (int) instance.value(quasiIndices[i]);
+            } else if (instance.isMissing(quasiIndices[i])) {
+                codes[i] = quasiNumericValues[i].length;
+            } else {
+                codes[i] = Arrays.binarySearch(quasiNumericValues[i], 
+                        QuasiKeyEncoder.canonical(
+                        instance.value(quasiIndices[i])));
+            }
         }
-        return quasiset.toString();
+        return quasiKeys.encode(codes);
     }
     
     /**
@@ -322,16 +873,18 @@ public class Anonymize {
      * 
      * @param attribute  Attribute to discretize
      * @param numBins number of bins
+     * @return the cut points of the bins
      * @throws Exception if problem with binning
      */
-    private void DGHbinning(Attribute attribute, int numBins) throws Exception {
+    private double[] DGHbinning(Attribute attribute, int numBins) 
+            throws Exception {
         //System.out.println("DGH - performing on attribute " + attribute.name());
         Discretize filter = new Discretize();
         // get the index of the attribute
         int[] index = {attribute.index()};
         
         if (numBins < 3) {
-            System.out.println(attribute.name() + " reduced to " + numBins + 
+            out.println(attribute.name() + " reduced to " + numBins + 
                     " bins.");
         }
         filter.setBins(numBins);
@@ -339,25 +892,26 @@ public class Anonymize {
         filter.setAttributeIndicesArray(index);
         filter.setInputFormat(instances);
         instances = Filter.useFilter(instances, filter);
+        double[] points = filter.getCutPoints(index[0]);
+        return points == null ? new double[0] : points;
     }
 
     /**
      * saves the non private data instances  to the output file
      *
-     * @throws Exception  if something goes wrong
+     * @throws IOException  if the output file can't be written
      */
-    public void saveArff() {
+    public void saveArff() throws IOException {
+        BufferedWriter writer;
+        out.println("There are " + instances.numInstances() +
+                " instances in the final output.");
+        writer = new BufferedWriter(new FileWriter(outFile));
         try {
-            BufferedWriter writer;
-            System.out.println("There are " + instances.numInstances() +
-                    " instances in the final output.");
-            writer = new BufferedWriter(new FileWriter(outFile));
             writer.write(instances.toString());
             writer.newLine();
             writer.flush();
+        } finally {
             writer.close();
-        } catch (IOException ex) {
-            Logger.getLogger(Anonymize.class.getName()).log(Level.SEVERE, null, ex);
         }
     }
 
@@ -365,7 +919,7 @@ public class Anonymize {
      * Apply the Remove filter to remove records that have asked that data not 
      * be mined
      */
-    private void deletePrivateRecords() {
+    public void deletePrivateRecords() {
         try {
             RemoveWithValues filter = new RemoveWithValues();
             Attribute sec = instances.attribute("SecurityCode");
@@ -378,7 +932,7 @@ public class Anonymize {
         } catch (Exception ex) {
             Logger.getLogger(Anonymize.class.getName()).log(Level.SEVERE, null, ex);
         }
-        System.out.printf("After deleing records with security code 2, "
+        out.printf("After deleing records with security code 2, "
                 + "there are %d records\n",instances.numInstances());
     }
 
@@ -453,13 +1007,34 @@ public class Anonymize {
         }
     }
     
+    /**
+     * @return number of records read from the arff file
+     */
+    public int getNumInputRecords() {
+        return numInputRecords;
+    }
+
+    /**
+     * @return number of datafly iterations of the last run
+     */
+    public int getIterationCount() {
+        return iterationCount;
+    }
+
+    /**
+     * @return number of records suppressed by the last run
+     */
+    public int getSuppressedRecords() {
+        return suppressedRecords;
+    }
+
     /**
      * Prints the list of attributes used in the dataset
      */
     private void printAttributes() {
         for (Enumeration e = instances.enumerateAttributes(); e.hasMoreElements();) {
             Attribute attribute = (Attribute) e.nextElement();
-            System.out.println(attribute.name());
+            out.println(attribute.name());
         }
     }
     
@@ -470,12 +1045,33 @@ public class Anonymize {
      * @param args 
      *      args[0]= arrf file to preprocess
      *      args[1]=location to save arrf file
+     *      optional flags after the files:
+     *      -l n = require distinct n-diversity of the sensitive attribute
+     *      -entropy-l n = require entropy n-diversity of the sensitive attribute
+     *      -t x = require x-closeness of the sensitive attribute
+     *      -sensitive name = sensitive attribute, DonorCode by default
+     *      -cache file = warm start from and save to a generalization cache
      */
     public static void main(String args[]) {
         File in = new File(args[0]);
         File out = new File(args[1]);
         
         Anonymize pre = new Anonymize(in, out);
+        for (int i = 2; i + 1 < args.length; i = i + 2) {
+            if (args[i].equals("-l")) {
+                pre.setLDiversity(Integer.parseInt(args[i + 1]), false);
+            } else if (args[i].equals("-entropy-l")) {
+                pre.setLDiversity(Integer.parseInt(args[i + 1]), true);
+            } else if (args[i].equals("-t")) {
+                pre.setTCloseness(Double.parseDouble(args[i + 1]));
+            } else if (args[i].equals("-sensitive")) {
+                pre.setSensitiveAttribute(args[i + 1]);
+            } else if (args[i].equals("-cache")) {
+                pre.setCacheFile(new File(args[i + 1]));
+            } else {
+                System.out.println("Error - unknown option " + args[i]);
+            }
+        }
         pre.readFile();
         
         try {
@@ -0,0 +1,387 @@
+//import statements
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * BatchAnonymize runs the datafly algorithm of Anonymize over many arff files
+ * concurrently inside a single JVM.
+ *
+ * The number of files processed at once is bounded by a global heap budget.
+ * The heap needed by each file is estimated from its size, its number of
+ * attributes and its number of quasi ids before it is loaded. Files are
+ * scheduled largest first so a big file is not left running alone at the end
+ * of the batch. The progress of each file is printed in one piece when the
+ * file is done, every line prefixed with the name of the file.
+ */
+public class BatchAnonymize {
+
+    //bytes of heap used by each attribute value of a weka instance
+    private static final int BYTES_PER_VALUE = 8;
+    //bytes of heap used by a weka instance and the quasi id frequency entry
+    private static final int BYTES_PER_RECORD = 160;
+    //each weka filter builds a new copy of the data set
+    private static final int FILTER_COPIES = 2;
+    //number of data lines read to estimate the average record length
+    private static final int SAMPLE_LINES = 100;
+    //fraction of the maximum heap used when no budget is given
+    private static final double DEFAULT_BUDGET_FRACTION = 0.8;
+    //one permit of the heap budget semaphore
+    private static final long MEGABYTE = 1024 * 1024;
+
+    //files to anonymize
+    private List<Job> jobs;
+    //location to save the summary table
+    private File summaryFile;
+    //heap budget in megabytes shared by all the running jobs
+    private int budgetMegabytes;
+    //number of worker threads
+    private int numThreads;
+
+    /**
+     * A single file to anonymize and the statistics of its run
+     */
+    private static class Job {
+        //source of the instances to anonymize
+        private File inFile;
+        //destination of the preprocessed instances
+        private File outFile;
+        //estimated heap needed to anonymize the file, in megabytes
+        private int estimatedMegabytes;
+        //number of records read from the file
+        private int rowsIn;
+        //number of records suppressed by datafly
+        private int rowsSuppressed;
+        //number of datafly iterations
+        private int iterations;
+        //time spent on the file in milliseconds
+        private long millis;
+        //did the file get anonymized
+        private boolean succeeded;
+
+        private Job(File inFile, File outFile) {
+            this.inFile = inFile;
+            this.outFile = outFile;
+        }
+    }
+
+    /**
+     * Constructor
+     *
+     * @param jobs  pairs of source and destination files
+     * @param summaryFile  location to save the summary table
+     * @param budgetMegabytes  heap budget shared by the running jobs
+     */
+    public BatchAnonymize(List<File[]> jobs, File summaryFile,
+            int budgetMegabytes) {
+        this.jobs = new ArrayList<Job>();
+        for (File[] job : jobs) {
+            this.jobs.add(new Job(job[0], job[1]));
+        }
+        this.summaryFile = summaryFile;
+        this.budgetMegabytes = Math.max(1, budgetMegabytes);
+        this.numThreads = Math.max(1, Math.min(
+                Runtime.getRuntime().availableProcessors(), jobs.size()));
+    }
+
+    /**
+     * Estimate the heap of every file and sort them from largest to smallest
+     */
+    private void scheduleJobs() {
+        for (Job job : jobs) {
+            job.estimatedMegabytes = (int) Math.min(budgetMegabytes,
+                    Math.max(1, estimateHeap(job.inFile) / MEGABYTE));
+        }
+        Collections.sort(jobs, new Comparator<Job>() {
+            public int compare(Job a, Job b) {
+                return b.estimatedMegabytes - a.estimatedMegabytes;
+            }
+        });
+    }
+
+    /**
+     * Estimate the heap needed to anonymize an arff file. The header is read
+     * to count the attributes and quasi ids, and the first data lines are
+     * sampled to estimate the number of records from the size of the file
+     *
+     * @param file  arff file to anonymize
+     * @return estimated heap in bytes
+     */
+    static long estimateHeap(File file) {
+        int numAttributes = 0;
+        int numSecure = 0;
+        long headerBytes = 0;
+        long sampleBytes = 0;
+        int sampleLines = 0;
+        try {
+            BufferedReader reader = new BufferedReader(new FileReader(file));
+            String line;
+            boolean data = false;
+            while ((line = reader.readLine()) != null
+                    && sampleLines < SAMPLE_LINES) {
+                if (data) {
+                    sampleBytes = sampleBytes + line.length() + 1;
+                    sampleLines++;
+                    continue;
+                }
+                headerBytes = headerBytes + line.length() + 1;
+                String tag = line.split(" ")[0];
+                if (tag.equals("@attribute")) {
+                    numAttributes++;
+                } else if (tag.equals("@secure")) {
+                    numSecure++;
+                } else if (tag.equals("@data")) {
+                    data = true;
+                }
+            }
+            reader.close();
+        } catch (IOException ex) {
+            Logger.getLogger(BatchAnonymize.class.getName()).log(Level.WARNING,
+                    "Failed to estimate the size of " + file, ex);
+        }
+        if (sampleLines == 0) {
+            return 0;
+        }
+        long numRecords = (file.length() - headerBytes)
+                / Math.max(1, sampleBytes / sampleLines);
+        //the quasi ids are copied before they are generalized
+        long bytesPerRecord = (numAttributes + numSecure) * BYTES_PER_VALUE
+                + BYTES_PER_RECORD;
+        return numRecords * bytesPerRecord * FILTER_COPIES;
+    }
+
+    /**
+     * Anonymize all the files, at most as many at once as the heap budget and
+     * the number of processors allow, and save the summary table
+     *
+     * @throws InterruptedException if interrupted while waiting for the jobs
+     */
+    public void run() throws InterruptedException {
+        scheduleJobs();
+        System.out.printf("Batch - %d files on %d threads with a %d MB heap "
+                + "budget\n", jobs.size(), numThreads, budgetMegabytes);
+        //fair, so the largest waiting file gets the memory first
+        final Semaphore budget = new Semaphore(budgetMegabytes, true);
+        ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+        long start = System.currentTimeMillis();
+        for (final Job job : jobs) {
+            executor.execute(new Runnable() {
+                public void run() {
+                    budget.acquireUninterruptibly(job.estimatedMegabytes);
+                    try {
+                        anonymize(job);
+                    } finally {
+                        budget.release(job.estimatedMegabytes);
+                    }
+                }
+            });
+        }
+        executor.shutdown();
+        executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        long wallMillis = System.currentTimeMillis() - start;
+        saveSummary(wallMillis);
+    }
+
+    /**
+     * Anonymize a single file and record its statistics
+     *
+     * @param job  file to anonymize
+     */
+    private void anonymize(Job job) {
+        long start = System.currentTimeMillis();
+        ByteArrayOutputStream progress = new ByteArrayOutputStream();
+        try {
+            Anonymize anonymize = new Anonymize(job.inFile, job.outFile);
+            anonymize.setOutput(new PrintStream(progress, true));
+            anonymize.readFile();
+            job.rowsIn = anonymize.getNumInputRecords();
+            anonymize.deletePrivateRecords();
+            anonymize.datafly();
+            anonymize.saveArff();
+            job.rowsSuppressed = anonymize.getSuppressedRecords();
+            job.iterations = anonymize.getIterationCount();
+            job.succeeded = true;
+        } catch (Exception ex) {
+            Logger.getLogger(BatchAnonymize.class.getName()).log(Level.SEVERE,
+                    "Failed in anonymizing " + job.inFile, ex);
+        }
+        job.millis = System.currentTimeMillis() - start;
+        printProgress(job.inFile.getName(), progress.toString());
+    }
+
+    /**
+     * Prints the progress of a file, every line prefixed with its name, so
+     * the lines of files running at once are not mixed up
+     *
+     * @param fileName  name of the file
+     * @param progress  the progress printed while anonymizing the file
+     */
+    private static void printProgress(String fileName, String progress) {
+        StringBuilder lines = new StringBuilder();
+        for (String line : progress.split("\n")) {
+            if (line.trim().length() > 0) {
+                lines.append('[').append(fileName).append("] ")
+                        .append(line).append('\n');
+            }
+        }
+        System.out.print(lines.toString());
+    }
+
+    /**
+     * Saves a table with the statistics of every file to the summary file
+     *
+     * @param wallMillis  time spent on the whole batch
+     */
+    private void saveSummary(long wallMillis) {
+        long workMillis = 0;
+        StringBuilder table = new StringBuilder();
+        table.append(String.format("%-40s %10s %10s %10s %10s %8s\n", "file",
+                "rows in", "suppressed", "iterations", "seconds", "status"));
+        for (Job job : jobs) {
+            workMillis = workMillis + job.millis;
+            table.append(String.format("%-40s %10d %10d %10d %10.1f %8s\n",
+                    job.inFile.getName(), job.rowsIn, job.rowsSuppressed,
+                    job.iterations, job.millis / 1000.0,
+                    job.succeeded ? "OK" : "FAILED"));
+        }
+        table.append(String.format("Wall time: %.1f s, sum of work: %.1f s, "
+                + "threads: %d\n", wallMillis / 1000.0, workMillis / 1000.0,
+                numThreads));
+        System.out.print(table.toString());
+        try {
+            BufferedWriter writer = new BufferedWriter(
+                    new FileWriter(summaryFile));
+            writer.write(table.toString());
+            writer.flush();
+            writer.close();
+        } catch (IOException ex) {
+            Logger.getLogger(BatchAnonymize.class.getName()).log(Level.SEVERE,
+                    "Failed to save the summary", ex);
+        }
+    }
+
+    /**
+     * Lists the files to anonymize. A directory contributes all of its arff
+     * files. A manifest lists one source file per line, optionally followed
+     * by its destination file. Destinations that are not given are placed in
+     * the output directory under the name of the source file
+     *
+     * @param source  directory or manifest
+     * @param outDir  default location of the preprocessed files
+     * @return pairs of source and destination files
+     * @throws IOException if the manifest can't be read, or a destination is
+     *  shared by two files or is also a source of the batch
+     */
+    static List<File[]> listJobs(File source, File outDir) throws IOException {
+        List<File[]> jobs = new ArrayList<File[]>();
+        if (source.isDirectory()) {
+            if (source.getCanonicalFile().equals(outDir.getCanonicalFile())) {
+                throw new IOException("The output directory " + outDir
+                        + " would overwrite the files of " + source);
+            }
+            File[] files = source.listFiles();
+            for (File file : files) {
+                if (file.getName().endsWith(".arff")) {
+                    jobs.add(new File[]{file, new File(outDir, file.getName())});
+                }
+            }
+            checkDestinations(jobs);
+            return jobs;
+        }
+        BufferedReader reader = new BufferedReader(new FileReader(source));
+        String line;
+        while ((line = reader.readLine()) != null) {
+            line = line.trim();
+            //skip blank lines and comments
+            if (line.length() == 0 || line.startsWith("#")) {
+                continue;
+            }
+            String[] tokens = line.split("\\s+");
+            File in = new File(tokens[0]);
+            File out = tokens.length > 1 ? new File(tokens[1])
+                    : new File(outDir, in.getName());
+            jobs.add(new File[]{in, out});
+        }
+        reader.close();
+        checkDestinations(jobs);
+        return jobs;
+    }
+
+    /**
+     * Makes sure no file of the batch is written twice, or written while
+     * another job may be reading it
+     *
+     * @param jobs  pairs of source and destination files
+     * @throws IOException if a destination is shared by two files or is also
+     *  a source of the batch
+     */
+    private static void checkDestinations(List<File[]> jobs)
+            throws IOException {
+        Set<File> sources = new HashSet<File>();
+        for (File[] job : jobs) {
+            sources.add(job[0].getCanonicalFile());
+        }
+        Set<File> destinations = new HashSet<File>();
+        for (File[] job : jobs) {
+            File out = job[1].getCanonicalFile();
+            if (sources.contains(out)) {
+                throw new IOException("The output of " + job[0]
+                        + " would overwrite the source " + job[1]);
+            }
+            if (!destinations.add(out)) {
+                throw new IOException("The output of " + job[0]
+                        + " would overwrite the output " + job[1]
+                        + " of another file");
+            }
+        }
+    }
+
+    /**
+     * Main method.
+     * Anonymizes every file of a directory or manifest
+     *
+     * @param args
+     *      args[0]: directory of arff files or manifest of files
+     *      args[1]: location to save the preprocessed files
+     *      args[2]: (optional) location to save the summary table
+     *      args[3]: (optional) heap budget in megabytes
+     */
+    public static void main(String[] args) {
+        File source = new File(args[0]);
+        File outDir = new File(args[1]);
+        File summary = args.length > 2 ? new File(args[2])
+                : new File(outDir, "summary.txt");
+        int budget = args.length > 3 ? Integer.parseInt(args[3])
+                : (int) (Runtime.getRuntime().maxMemory()
+                * DEFAULT_BUDGET_FRACTION / MEGABYTE);
+        try {
+            outDir.mkdirs();
+            BatchAnonymize batch = new BatchAnonymize(
+                    listJobs(source, outDir), summary, budget);
+            batch.run();
+        } catch (IOException ex) {
+            Logger.getLogger(BatchAnonymize.class.getName()).log(Level.SEVERE,
+                    "Failed in reading the list of files", ex);
+        } catch (InterruptedException ex) {
+            Logger.getLogger(BatchAnonymize.class.getName()).log(Level.SEVERE,
+                    "Interrupted while anonymizing the files", ex);
+        }
+    }
+}
@@ -0,0 +1,248 @@
+//import statements
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * GeneralizationCache saves the outcome of a datafly run so the next run on
+ * data with the same schema and quasi ids can start from it.
+ *
+ * For each schema and quasi id set the cache file holds the final number of
+ * bins of each generalized attribute, the equal frequency cut points of those
+ * bins, and the trajectory of generalization steps that led to them. Entries
+ * are stored as properties under a prefix made from the hash of their key,
+ * probing the following hashes when keys collide, so one cache file can
+ * serve many recurring jobs.
+ */
+public class GeneralizationCache {
+
+    //serializes the reads and writes of the cache files in this jvm
+    private static final Object LOCK = new Object();
+
+    //location of the cache file
+    private File file;
+
+    /**
+     * Constructor
+     *
+     * @param file  location of the cache file, created on the first save
+     */
+    public GeneralizationCache(File file) {
+        this.file = file;
+    }
+
+    /**
+     * Finds the prefix of an entry's properties, starting at the hash of its
+     * key and probing the following hashes while they hold other keys
+     *
+     * @param properties  the entries of the cache
+     * @param key  schema and quasi id set of an entry
+     * @param free  return the first free prefix if the key has no entry
+     * @return prefix of the entry's properties, null if there is no entry
+     *  and free is false
+     */
+    private static String prefix(Properties properties, String key,
+            boolean free) {
+        for (int hash = key.hashCode();; hash++) {
+            String prefix = Integer.toHexString(hash) + ".";
+            String stored = properties.getProperty(prefix + "key");
+            if (stored == null) {
+                return free ? prefix : null;
+            }
+            if (stored.equals(key)) {
+                return prefix;
+            }
+        }
+    }
+
+    /**
+     * Loads the cached generalization of a schema and quasi id set
+     *
+     * @param key  schema and quasi id set
+     * @param bins  filled with the final number of bins of each attribute
+     * @param cutPoints  filled with the cut points of each attribute
+     * @param stepAttributes  filled with the attribute of each step
+     * @param stepBins  filled with the number of bins of each step
+     * @return is there an entry for the key
+     */
+    public boolean load(String key, Map<String, Integer> bins,
+            Map<String, double[]> cutPoints, List<String> stepAttributes,
+            List<Integer> stepBins) {
+        Properties properties = read();
+        String prefix = prefix(properties, key, false);
+        if (prefix == null) {
+            return false;
+        }
+        try {
+            for (String[] step : splitSteps(
+                    properties.getProperty(prefix + "bins"))) {
+                bins.put(step[0], Integer.parseInt(step[1]));
+            }
+            for (String[] step : splitSteps(
+                    properties.getProperty(prefix + "trajectory"))) {
+                stepAttributes.add(step[0]);
+                stepBins.add(Integer.parseInt(step[1]));
+            }
+            for (String attributeName : bins.keySet()) {
+                String points = properties.getProperty(prefix + "cutpoints."
+                        + attributeName, "");
+                String[] tokens = points.length() == 0 ? new String[0]
+                        : points.split(",");
+                double[] values = new double[tokens.length];
+                for (int i = 0; i < tokens.length; i++) {
+                    values[i] = Double.parseDouble(tokens[i]);
+                }
+                cutPoints.put(attributeName, values);
+            }
+        } catch (NumberFormatException ex) {
+            Logger.getLogger(GeneralizationCache.class.getName()).log(
+                    Level.WARNING, "Ignoring a corrupt entry in " + file, ex);
+            bins.clear();
+            cutPoints.clear();
+            stepAttributes.clear();
+            stepBins.clear();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Saves the generalization of a schema and quasi id set, replacing any
+     * earlier entry for it
+     *
+     * @param key  schema and quasi id set
+     * @param bins  final number of bins of each attribute
+     * @param cutPoints  cut points of each attribute
+     * @param stepAttributes  attribute of each step
+     * @param stepBins  number of bins of each step
+     */
+    public void save(String key, Map<String, Integer> bins,
+            Map<String, double[]> cutPoints, List<String> stepAttributes,
+            List<Integer> stepBins) {
+        synchronized (LOCK) {
+            Properties properties = read();
+            String prefix = prefix(properties, key, true);
+            for (String name : properties.stringPropertyNames()) {
+                if (name.startsWith(prefix)) {
+                    properties.remove(name);
+                }
+            }
+            properties.setProperty(prefix + "key", key);
+            StringBuilder value = new StringBuilder();
+            for (Map.Entry<String, Integer> entry : bins.entrySet()) {
+                appendStep(value, entry.getKey(), entry.getValue());
+            }
+            properties.setProperty(prefix + "bins", value.toString());
+            value = new StringBuilder();
+            for (int i = 0; i < stepAttributes.size(); i++) {
+                appendStep(value, stepAttributes.get(i), stepBins.get(i));
+            }
+            properties.setProperty(prefix + "trajectory", value.toString());
+            for (Map.Entry<String, double[]> entry : cutPoints.entrySet()) {
+                value = new StringBuilder();
+                for (double point : entry.getValue()) {
+                    if (value.length() > 0) {
+                        value.append(',');
+                    }
+                    value.append(point);
+                }
+                properties.setProperty(prefix + "cutpoints." + entry.getKey(),
+                        value.toString());
+            }
+            write(properties);
+        }
+    }
+
+    /**
+     * Appends an attribute and number of bins to a list of steps
+     *
+     * @param steps  comma separated list of steps
+     * @param attributeName  attribute of the step
+     * @param bins  number of bins of the step
+     */
+    private static void appendStep(StringBuilder steps, String attributeName,
+            int bins) {
+        if (steps.length() > 0) {
+            steps.append(',');
+        }
+        steps.append(attributeName).append(':').append(bins);
+    }
+
+    /**
+     * @param steps  comma separated list of steps
+     * @return attribute and number of bins of each step
+     */
+    private static List<String[]> splitSteps(String steps) {
+        List<String[]> split = new ArrayList<String[]>();
+        if (steps == null || steps.length() == 0) {
+            return split;
+        }
+        for (String step : steps.split(",")) {
+            int colon = step.lastIndexOf(':');
+            split.add(new String[]{step.substring(0, colon),
+                step.substring(colon + 1)});
+        }
+        return split;
+    }
+
+    /**
+     * @return the properties of the cache file, empty if there is none
+     */
+    private Properties read() {
+        Properties properties = new Properties();
+        synchronized (LOCK) {
+            if (!file.exists()) {
+                return properties;
+            }
+            try {
+                InputStream in = new FileInputStream(file);
+                try {
+                    properties.load(in);
+                } finally {
+                    in.close();
+                }
+            } catch (IOException ex) {
+                Logger.getLogger(GeneralizationCache.class.getName()).log(
+                        Level.WARNING, "Failed in reading " + file, ex);
+            }
+        }
+        return properties;
+    }
+
+    /**
+     * Writes the properties to a temporary file and moves it over the cache
+     * file, so a failed write doesn't lose the earlier entries
+     *
+     * @param properties  all the entries of the cache
+     */
+    private void write(Properties properties) {
+        File tmp = new File(file.getPath() + ".tmp");
+        try {
+            OutputStream out = new FileOutputStream(tmp);
+            try {
+                properties.store(out, "datafly generalization cache");
+            } finally {
+                out.close();
+            }
+            if (!tmp.renameTo(file)) {
+                //renaming over an existing file fails on some platforms
+                file.delete();
+                if (!tmp.renameTo(file)) {
+                    throw new IOException("Could not replace " + file);
+                }
+            }
+        } catch (IOException ex) {
+            Logger.getLogger(GeneralizationCache.class.getName()).log(
+                    Level.WARNING, "Failed in saving " + file, ex);
+        }
+    }
+}
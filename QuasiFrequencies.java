@@ -0,0 +1,354 @@
+//import statements
+import java.util.Arrays;
+
+/**
+ * QuasiFrequencies counts how many records share each quasi id. The quasi
+ * ids are the non negative keys built by a QuasiKeyEncoder, and the counts are
+ * kept in an open addressing table of primitives so counting doesn't create
+ * an object per record.
+ *
+ * A table can also keep, for each quasi id, a histogram of the values of a
+ * sensitive attribute, counted in the same pass as its frequency. Each quasi
+ * id is given a group number, and the histograms are kept sparse in a second
+ * table keyed by group and sensitive value, so only the pairs that occur
+ * take space.
+ *
+ * A table is not thread safe. Threads that count in parallel each fill their
+ * own table and merge them once they are done.
+ */
+public class QuasiFrequencies {
+
+    //number of distinct quasi ids a table is first sized for
+    public static final int DEFAULT_SIZE = 1024;
+    //marks an empty slot, keys are never negative
+    private static final long EMPTY = -1L;
+    //the table is grown when it is more than this full
+    private static final double LOAD_FACTOR = 0.5;
+    //multiplier used to spread the keys over the table
+    private static final long SPREAD = 0x9E3779B97F4A7C15L;
+
+    //quasi id of each slot
+    private long[] keys;
+    //frequency of the quasi id of each slot
+    private int[] counts;
+    //number of distinct quasi ids
+    private int size;
+    //number of records counted
+    private int numRecords;
+    //number of values of the sensitive attribute, 0 if not tracked
+    private int numSensitiveValues;
+    //group number of the quasi id of each slot
+    private int[] groups;
+    //number of records of each group and sensitive value, null if not tracked
+    private QuasiFrequencies sensitivePairs;
+
+    /**
+     * Constructor
+     */
+    public QuasiFrequencies() {
+        this(DEFAULT_SIZE);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param expectedSize  expected number of distinct quasi ids
+     */
+    public QuasiFrequencies(int expectedSize) {
+        this(expectedSize, 0);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param expectedSize  expected number of distinct quasi ids
+     * @param numSensitiveValues  number of values of the sensitive attribute
+     *  to keep a histogram of, 0 for none
+     */
+    public QuasiFrequencies(int expectedSize, int numSensitiveValues) {
+        this.numSensitiveValues = numSensitiveValues;
+        if (numSensitiveValues > 0) {
+            sensitivePairs = new QuasiFrequencies(expectedSize);
+        }
+        int capacity = 16;
+        while (capacity * LOAD_FACTOR < expectedSize) {
+            capacity = capacity * 2;
+        }
+        allocate(capacity);
+    }
+
+    /**
+     * Creates an empty table with the passed number of slots
+     *
+     * @param capacity  number of slots, a power of two
+     */
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        counts = new int[capacity];
+        groups = new int[capacity];
+        Arrays.fill(keys, EMPTY);
+        size = 0;
+        numRecords = 0;
+    }
+
+    /**
+     * Remove all the quasi ids
+     */
+    public void clear() {
+        Arrays.fill(keys, EMPTY);
+        Arrays.fill(counts, 0);
+        if (sensitivePairs != null) {
+            sensitivePairs.clear();
+        }
+        size = 0;
+        numRecords = 0;
+    }
+
+    /**
+     * Find the slot of a quasi id, or the empty slot where it belongs
+     *
+     * @param key  quasi id
+     * @return slot index
+     */
+    private int slotOf(long key) {
+        int mask = keys.length - 1;
+        int slot = (int) ((key * SPREAD) >>> 32) & mask;
+        while (keys[slot] != EMPTY && keys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    /**
+     * Count one more record with the passed quasi id
+     *
+     * @param key  quasi id
+     * @return slot of the quasi id
+     */
+    public int add(long key) {
+        return add(key, 1);
+    }
+
+    /**
+     * Count records with the passed quasi id
+     *
+     * @param key  quasi id
+     * @param count  number of records
+     * @return slot of the quasi id
+     */
+    public int add(long key, int count) {
+        int slot = slotOf(key);
+        if (keys[slot] == EMPTY) {
+            if (size + 1 > keys.length * LOAD_FACTOR) {
+                grow();
+                slot = slotOf(key);
+            }
+            keys[slot] = key;
+            groups[slot] = size;
+            size++;
+        }
+        counts[slot] = counts[slot] + count;
+        numRecords = numRecords + count;
+        return slot;
+    }
+
+    /**
+     * Double the number of slots and place the quasi ids again
+     */
+    private void grow() {
+        long[] oldKeys = keys;
+        int[] oldCounts = counts;
+        int[] oldGroups = groups;
+        int oldRecords = numRecords;
+        allocate(oldKeys.length * 2);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != EMPTY) {
+                int slot = slotOf(oldKeys[i]);
+                keys[slot] = oldKeys[i];
+                counts[slot] = oldCounts[i];
+                groups[slot] = oldGroups[i];
+                size++;
+            }
+        }
+        numRecords = oldRecords;
+    }
+
+    /**
+     * Count one more record with the passed sensitive value in the histogram
+     * of a slot
+     *
+     * @param slot  slot of the record's quasi id, as returned by add
+     * @param sensitiveCode  index of the record's sensitive value
+     */
+    public void addSensitive(int slot, int sensitiveCode) {
+        sensitivePairs.add(pairKey(groups[slot], sensitiveCode));
+    }
+
+    /**
+     * @param group  group number of a quasi id
+     * @param sensitiveCode  index of a sensitive value
+     * @return key of the pair in the sensitive pair table
+     */
+    private static long pairKey(int group, int sensitiveCode) {
+        return ((long) group << 32) | sensitiveCode;
+    }
+
+    /**
+     * @param pairKey  key of the sensitive pair table
+     * @return group number of the pair
+     */
+    public static int pairGroup(long pairKey) {
+        return (int) (pairKey >>> 32);
+    }
+
+    /**
+     * @param pairKey  key of the sensitive pair table
+     * @return sensitive value of the pair
+     */
+    public static int pairCode(long pairKey) {
+        return (int) pairKey;
+    }
+
+    /**
+     * @param key  quasi id
+     * @return slot of the quasi id, -1 if there are no records with it
+     */
+    public int find(long key) {
+        int slot = slotOf(key);
+        return keys[slot] == EMPTY ? -1 : slot;
+    }
+
+    /**
+     * @param key  quasi id
+     * @return number of records with the quasi id, 0 if there are none
+     */
+    public int get(long key) {
+        int slot = slotOf(key);
+        return keys[slot] == EMPTY ? 0 : counts[slot];
+    }
+
+    /**
+     * Adds the counts of another table to this one
+     *
+     * @param other  table to merge
+     */
+    public void merge(QuasiFrequencies other) {
+        //group number in this table of each group of the other table
+        int[] mergedGroups = new int[other.size()];
+        for (int slot = 0; slot < other.capacity(); slot++) {
+            if (other.isUsed(slot)) {
+                int mergedSlot = add(other.keyAt(slot), other.countAt(slot));
+                mergedGroups[other.groupAt(slot)] = groups[mergedSlot];
+            }
+        }
+        if (sensitivePairs == null || other.sensitivePairs == null) {
+            return;
+        }
+        QuasiFrequencies pairs = other.sensitivePairs;
+        for (int slot = 0; slot < pairs.capacity(); slot++) {
+            if (pairs.isUsed(slot)) {
+                long pair = pairs.keyAt(slot);
+                sensitivePairs.add(pairKey(mergedGroups[pairGroup(pair)],
+                        pairCode(pair)), pairs.countAt(slot));
+            }
+        }
+    }
+
+    /**
+     * @return number of distinct quasi ids
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return number of records counted
+     */
+    public int numRecords() {
+        return numRecords;
+    }
+
+    /**
+     * @return number of slots, used to walk over the quasi ids
+     */
+    public int capacity() {
+        return keys.length;
+    }
+
+    /**
+     * @param slot  slot index
+     * @return does the slot hold a quasi id
+     */
+    public boolean isUsed(int slot) {
+        return keys[slot] != EMPTY;
+    }
+
+    /**
+     * @param slot  slot index
+     * @return quasi id of the slot
+     */
+    public long keyAt(int slot) {
+        return keys[slot];
+    }
+
+    /**
+     * @param slot  slot index
+     * @return number of records with the quasi id of the slot
+     */
+    public int countAt(int slot) {
+        return counts[slot];
+    }
+
+    /**
+     * @return number of values of the sensitive attribute, 0 if not tracked
+     */
+    public int numSensitiveValues() {
+        return numSensitiveValues;
+    }
+
+    /**
+     * @param slot  slot index
+     * @return group number of the quasi id of the slot, from 0 to size - 1
+     */
+    public int groupAt(int slot) {
+        return groups[slot];
+    }
+
+    /**
+     * @return number of records of each group and sensitive value, keyed by
+     *  pairs whose parts are read with pairGroup and pairCode, null if the
+     *  sensitive attribute is not tracked
+     */
+    public QuasiFrequencies sensitivePairs() {
+        return sensitivePairs;
+    }
+
+    /**
+     * @return size of the smallest group of records sharing a quasi id, 0 if
+     *  there are no records
+     */
+    public int minimum() {
+        int min = 0;
+        for (int slot = 0; slot < keys.length; slot++) {
+            if (keys[slot] != EMPTY && (min == 0 || counts[slot] < min)) {
+                min = counts[slot];
+            }
+        }
+        return min;
+    }
+
+    /**
+     * @param k  the k in k-anonymity
+     * @return number of records whose quasi id is shared by less than k
+     *  records
+     */
+    public int recordsBelow(int k) {
+        int records = 0;
+        for (int slot = 0; slot < keys.length; slot++) {
+            if (keys[slot] != EMPTY && counts[slot] < k) {
+                records = records + counts[slot];
+            }
+        }
+        return records;
+    }
+}
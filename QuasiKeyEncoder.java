@@ -0,0 +1,297 @@
+//import statements
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * QuasiKeyEncoder turns the values of the quasi id attributes of a record
+ * into a single non negative long, the key used by QuasiFrequencies.
+ *
+ * Each attribute value is first given a code. Nominal values use their index,
+ * other values are given codes by a per attribute dictionary. Attributes of
+ * unknown cardinality share the code space left over by the others, so the
+ * codes can still be packed into the key by mixed radix. When the known
+ * cardinalities leave no room, or an attribute turns out to have more values
+ * than its share, every distinct combination of codes is given the next free
+ * tuple id instead. Tuple ids start at TUPLE_BASE, above every packed key, so
+ * the keys packed before the switch can still be told apart and re-keyed.
+ *
+ * An encoder is thread safe, so threads counting in parallel can share it and
+ * get the same key for the same quasi id, once their keys are re-keyed.
+ */
+public class QuasiKeyEncoder {
+
+    //first tuple id, packed keys are always below it
+    public static final long TUPLE_BASE = 1L << 62;
+
+    //number of codes of each attribute
+    private int[] cardinalities;
+    //multiplier of each attribute's code in a packed key
+    private long[] radix;
+    //are the codes packed into the key, turned off for good on overflow
+    private volatile boolean packed;
+    //codes given to the values of each attribute
+    private List<ConcurrentHashMap<Object, Integer>> dictionaries;
+    //values of each attribute in the order of their codes
+    private List<List<Object>> dictionaryValues;
+    //ids given to the combinations of codes when they can't be packed
+    private ConcurrentHashMap<CodeTuple, Long> tupleIds;
+    //combinations of codes in the order of their ids
+    private List<int[]> tuples;
+
+    /**
+     * A combination of codes used as a hash key
+     */
+    private static class CodeTuple {
+        private int[] codes;
+
+        private CodeTuple(int[] codes) {
+            this.codes = codes;
+        }
+
+        @Override
+        public int hashCode() {
+            return Arrays.hashCode(codes);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof CodeTuple
+                    && Arrays.equals(codes, ((CodeTuple) o).codes);
+        }
+    }
+
+    /**
+     * Constructor
+     *
+     * @param cardinalities  number of codes of each attribute, including the
+     *  code of a missing value, or 0 if unknown
+     */
+    public QuasiKeyEncoder(int[] cardinalities) {
+        this.cardinalities = cardinalities.clone();
+        radix = new long[cardinalities.length];
+        dictionaries = new ArrayList<ConcurrentHashMap<Object, Integer>>();
+        dictionaryValues = new ArrayList<List<Object>>();
+        for (int i = 0; i < cardinalities.length; i++) {
+            dictionaries.add(new ConcurrentHashMap<Object, Integer>());
+            dictionaryValues.add(new ArrayList<Object>());
+        }
+        boundUnknownCardinalities();
+        packed = true;
+        long product = 1;
+        for (int i = 0; i < cardinalities.length; i++) {
+            radix[i] = product;
+            if (this.cardinalities[i] <= 0
+                    || product > TUPLE_BASE / this.cardinalities[i]) {
+                packed = false;
+            } else {
+                product = product * this.cardinalities[i];
+            }
+        }
+        tupleIds = new ConcurrentHashMap<CodeTuple, Long>();
+        tuples = new ArrayList<int[]>();
+    }
+
+    /**
+     * Splits the code space left over by the attributes of known cardinality
+     * evenly among the attributes of unknown cardinality. An attribute that
+     * gets less than two codes is left unknown, which turns packing off
+     */
+    private void boundUnknownCardinalities() {
+        long known = 1;
+        int numUnknown = 0;
+        for (int cardinality : cardinalities) {
+            if (cardinality <= 0) {
+                numUnknown++;
+            } else if (known > TUPLE_BASE / cardinality) {
+                return;
+            } else {
+                known = known * cardinality;
+            }
+        }
+        if (numUnknown == 0) {
+            return;
+        }
+        long room = TUPLE_BASE / known;
+        long bound = Math.min(Integer.MAX_VALUE,
+                (long) Math.pow(room, 1.0 / numUnknown));
+        //the floating point root may round up
+        while (bound > 1 && !fits(bound, numUnknown, room)) {
+            bound--;
+        }
+        if (bound < 2) {
+            return;
+        }
+        for (int i = 0; i < cardinalities.length; i++) {
+            if (cardinalities[i] <= 0) {
+                cardinalities[i] = (int) bound;
+            }
+        }
+    }
+
+    /**
+     * @param bound  number of codes of each attribute
+     * @param numAttributes  number of attributes
+     * @param room  largest product allowed
+     * @return is bound to the power of numAttributes at most room
+     */
+    private static boolean fits(long bound, int numAttributes, long room) {
+        long product = 1;
+        for (int i = 0; i < numAttributes; i++) {
+            if (product > room / bound) {
+                return false;
+            }
+            product = product * bound;
+        }
+        return true;
+    }
+
+    /**
+     * @return are new keys packed without a lookup. Once false, keys packed
+     *  earlier have to be passed through rekey before they are compared with
+     *  newer keys
+     */
+    public boolean isPacked() {
+        return packed;
+    }
+
+    /**
+     * Gets the code of a value of an attribute that isn't nominal. A value
+     * seen for the first time is given the next free code, and packing is
+     * turned off when the code doesn't fit the attribute's share of the key
+     *
+     * @param attribute  position of the attribute in the quasi id
+     * @param value  value of the attribute
+     * @return code of the value
+     */
+    public int dictionaryCode(int attribute, Object value) {
+        ConcurrentHashMap<Object, Integer> dictionary =
+                dictionaries.get(attribute);
+        Integer code = dictionary.get(value);
+        if (code != null) {
+            return code;
+        }
+        List<Object> values = dictionaryValues.get(attribute);
+        synchronized (values) {
+            code = dictionary.get(value);
+            if (code == null) {
+                code = values.size();
+                if (packed && code >= cardinalities[attribute]) {
+                    packed = false;
+                }
+                values.add(value);
+                dictionary.put(value, code);
+            }
+        }
+        return code;
+    }
+
+    /**
+     * @param attribute  position of the attribute in the quasi id
+     * @param code  code given by dictionaryCode
+     * @return the value with the code
+     */
+    public Object dictionaryValue(int attribute, int code) {
+        List<Object> values = dictionaryValues.get(attribute);
+        synchronized (values) {
+            return values.get(code);
+        }
+    }
+
+    /**
+     * Builds the key of a quasi id
+     *
+     * @param codes  code of each attribute of the quasi id
+     * @return key of the quasi id
+     */
+    public long encode(int[] codes) {
+        if (packed) {
+            long key = 0;
+            int i = 0;
+            //a code given after the switch may not fit its share of the key
+            while (i < codes.length && codes[i] < cardinalities[i]) {
+                key = key + codes[i] * radix[i];
+                i++;
+            }
+            if (i == codes.length) {
+                return key;
+            }
+        }
+        return tupleId(codes);
+    }
+
+    /**
+     * Re-keys a key packed before packing was turned off into the tuple id
+     * of its codes, so it matches the keys built after the switch
+     *
+     * @param key  key built by encode
+     * @return the key as encode would build it now
+     */
+    public long rekey(long key) {
+        if (packed || key >= TUPLE_BASE) {
+            return key;
+        }
+        return tupleId(unpack(key));
+    }
+
+    /**
+     * @param codes  code of each attribute of the quasi id
+     * @return tuple id of the codes, the next free one if they are new
+     */
+    private long tupleId(int[] codes) {
+        CodeTuple tuple = new CodeTuple(codes.clone());
+        Long id = tupleIds.get(tuple);
+        if (id != null) {
+            return id;
+        }
+        synchronized (tuples) {
+            id = tupleIds.get(tuple);
+            if (id == null) {
+                id = TUPLE_BASE + tuples.size();
+                tuples.add(tuple.codes);
+                tupleIds.put(tuple, id);
+            }
+        }
+        return id;
+    }
+
+    /**
+     * Gets back the codes of a quasi id
+     *
+     * @param key  key built by encode
+     * @return code of each attribute of the quasi id
+     */
+    public int[] decode(long key) {
+        if (key < TUPLE_BASE) {
+            return unpack(key);
+        }
+        synchronized (tuples) {
+            return tuples.get((int) (key - TUPLE_BASE)).clone();
+        }
+    }
+
+    /**
+     * @param key  packed key
+     * @return code of each attribute of the quasi id
+     */
+    private int[] unpack(long key) {
+        int[] codes = new int[radix.length];
+        for (int i = codes.length - 1; i >= 0; i--) {
+            codes[i] = (int) (key / radix[i]);
+            key = key % radix[i];
+        }
+        return codes;
+    }
+
+    /**
+     * Makes non nominal values that are equal as numbers share a code, 0.0
+     * and -0.0 compare equal but are different keys
+     *
+     * @param value  numeric value
+     * @return the value, with -0.0 turned into 0.0
+     */
+    public static double canonical(double value) {
+        return value == 0.0 ? 0.0 : value;
+    }
+}
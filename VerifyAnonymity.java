@@ -0,0 +1,518 @@
+//import statements
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * VerifyAnonymity checks that a released arff file is k-anonymous.
+ *
+ * The file is streamed rather than loaded into weka. The reading thread hands
+ * batches of data lines to worker threads, each worker counts the quasi ids
+ * of its batches in its own QuasiFrequencies table, and the tables are merged
+ * at the end. The quasi ids are the @secure attributes of the file, or a list
+ * of attributes supplied by the auditor since weka doesn't save the @secure
+ * tags.
+ */
+public class VerifyAnonymity {
+
+    //number of data lines handed to a worker at once
+    private static final int BATCH_SIZE = 8192;
+    //maximum number of violating groups printed
+    private static final int MAX_PRINTED_GROUPS = 100;
+    //marks the end of the data lines
+    private static final List<String> END_OF_DATA = new ArrayList<String>();
+
+    //the file to verify
+    private File inFile;
+    //the k in the k-anonymity
+    private int k_anonymity_constant;
+    //number of worker threads
+    private int numThreads;
+    //list of attribute names in the arff file
+    private List<String> attributeNames;
+    //values of each nominal attribute, null for the other attributes
+    private List<List<String>> nominalValues;
+    //is each attribute numeric
+    private List<Boolean> numericAttributes;
+    //list of attributes that are considered quasi ids
+    private List<String> secureAttributes;
+    //column of each quasi attribute in a data line
+    private int[] quasiColumns;
+    //index of each value of each quasi attribute, null if it isn't nominal
+    private List<HashMap<String, Integer>> quasiValueIndices;
+    //is each quasi attribute numeric
+    private boolean[] quasiNumeric;
+    //code of each spelling of the values of each numeric quasi attribute
+    private List<ConcurrentHashMap<String, Integer>> quasiSpellings;
+    //builds the quasi id keys
+    private QuasiKeyEncoder quasiKeys;
+    //frequency of each quasi id in the file
+    private QuasiFrequencies quasiFreq;
+
+    /**
+     * Constructor
+     *
+     * @param inFile  the file to verify
+     * @param k  the k in k-anonymity
+     * @param secureAttributes  quasi attributes, or an empty list to use the
+     *  @secure tags of the file
+     * @param numThreads  number of worker threads
+     */
+    public VerifyAnonymity(File inFile, int k, List<String> secureAttributes,
+            int numThreads) {
+        this.inFile = inFile;
+        this.k_anonymity_constant = k;
+        this.secureAttributes = new ArrayList<String>(secureAttributes);
+        this.numThreads = Math.max(1, numThreads);
+        attributeNames = new ArrayList<String>();
+        nominalValues = new ArrayList<List<String>>();
+        numericAttributes = new ArrayList<Boolean>();
+    }
+
+    /**
+     * Reads the header of the file, then counts the quasi ids of the data
+     * lines in parallel
+     *
+     * @throws IOException if the file can't be read
+     * @throws InterruptedException if interrupted while counting
+     * @throws ExecutionException if a worker failed to parse a data line
+     */
+    public void verify() throws IOException, InterruptedException,
+            ExecutionException {
+        BufferedReader reader = new BufferedReader(new FileReader(inFile));
+        readHeader(reader);
+        createQuasiKeyEncoder();
+
+        final BlockingQueue<List<String>> batches =
+                new ArrayBlockingQueue<List<String>>(numThreads * 2);
+        ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+        List<Future<QuasiFrequencies>> results =
+                new ArrayList<Future<QuasiFrequencies>>();
+        for (int i = 0; i < numThreads; i++) {
+            results.add(executor.submit(new Callable<QuasiFrequencies>() {
+                public QuasiFrequencies call() throws InterruptedException {
+                    return countBatches(batches);
+                }
+            }));
+        }
+        executor.shutdown();
+
+        //hand the data lines to the workers
+        List<String> batch = new ArrayList<String>(BATCH_SIZE);
+        String line;
+        while ((line = reader.readLine()) != null) {
+            line = line.trim();
+            if (line.length() == 0 || line.startsWith("%")) {
+                continue;
+            }
+            batch.add(line);
+            if (batch.size() == BATCH_SIZE) {
+                batches.put(batch);
+                batch = new ArrayList<String>(BATCH_SIZE);
+            }
+        }
+        reader.close();
+        batches.put(batch);
+        for (int i = 0; i < numThreads; i++) {
+            batches.put(END_OF_DATA);
+        }
+
+        //merge the counts of the workers
+        quasiFreq = results.get(0).get();
+        for (int i = 1; i < results.size(); i++) {
+            quasiFreq.merge(results.get(i).get());
+        }
+        if (!quasiKeys.isPacked()) {
+            //a quasi attribute outgrew its share of the packed keys, re-key
+            //the classes counted before the switch so they meet the others
+            QuasiFrequencies rekeyed = new QuasiFrequencies(quasiFreq.size());
+            for (int slot = 0; slot < quasiFreq.capacity(); slot++) {
+                if (quasiFreq.isUsed(slot)) {
+                    rekeyed.add(quasiKeys.rekey(quasiFreq.keyAt(slot)),
+                            quasiFreq.countAt(slot));
+                }
+            }
+            quasiFreq = rekeyed;
+        }
+    }
+
+    /**
+     * Reads the attributes and @secure tags up to the @data tag
+     *
+     * @param reader  reader at the start of the file
+     * @throws IOException if the file can't be read
+     */
+    private void readHeader(BufferedReader reader) throws IOException {
+        boolean useSecureTags = secureAttributes.isEmpty();
+        String line;
+        while ((line = reader.readLine()) != null) {
+            line = line.trim();
+            String tag = line.split("\\s+")[0].toLowerCase();
+            if (tag.equals("@attribute")) {
+                readAttribute(line.substring(tag.length()).trim());
+            } else if (tag.equals("@secure") && useSecureTags) {
+                secureAttributes.add(line.substring(tag.length()).trim());
+            } else if (tag.equals("@data")) {
+                return;
+            }
+        }
+        throw new IOException("No @data tag in " + inFile);
+    }
+
+    /**
+     * Reads the name and the nominal values of an attribute
+     *
+     * @param declaration  the attribute line without its tag
+     * @throws IOException if the declaration is malformed
+     */
+    private void readAttribute(String declaration) throws IOException {
+        String name;
+        String type;
+        char quote = declaration.length() == 0 ? 0 : declaration.charAt(0);
+        if (quote == '\'' || quote == '"') {
+            int end = declaration.indexOf(quote, 1);
+            while (end > 0 && declaration.charAt(end - 1) == '\\') {
+                end = declaration.indexOf(quote, end + 1);
+            }
+            if (end < 0) {
+                throw new IOException("Malformed header in " + inFile
+                        + ", unterminated attribute name: " + declaration);
+            }
+            name = unquote(declaration.substring(0, end + 1));
+            type = declaration.substring(end + 1).trim();
+        } else {
+            String[] tokens = declaration.split("\\s+", 2);
+            if (tokens.length < 2) {
+                throw new IOException("Malformed header in " + inFile
+                        + ", attribute without a type: " + declaration);
+            }
+            name = tokens[0];
+            type = tokens[1].trim();
+        }
+        attributeNames.add(name);
+        String typeName = type.toLowerCase();
+        numericAttributes.add(typeName.startsWith("numeric")
+                || typeName.startsWith("real")
+                || typeName.startsWith("integer"));
+        if (type.startsWith("{")) {
+            if (type.lastIndexOf('}') < 0) {
+                throw new IOException("Malformed header in " + inFile
+                        + ", unterminated nominal values: " + declaration);
+            }
+            String values = type.substring(1, type.lastIndexOf('}'));
+            nominalValues.add(splitValues(values, Integer.MAX_VALUE));
+        } else {
+            nominalValues.add(null);
+        }
+    }
+
+    /**
+     * Creates the encoder of the quasi ids. Nominal quasi attributes are coded
+     * by their value index, the others by the encoder's dictionary
+     */
+    private void createQuasiKeyEncoder() {
+        if (secureAttributes.isEmpty()) {
+            throw new IllegalArgumentException("No quasi attributes given and "
+                    + "no @secure tags in " + inFile);
+        }
+        quasiColumns = new int[secureAttributes.size()];
+        quasiNumeric = new boolean[quasiColumns.length];
+        quasiValueIndices = new ArrayList<HashMap<String, Integer>>();
+        quasiSpellings = new ArrayList<ConcurrentHashMap<String, Integer>>();
+        int[] cardinalities = new int[quasiColumns.length];
+        for (int i = 0; i < quasiColumns.length; i++) {
+            quasiColumns[i] = attributeNames.indexOf(secureAttributes.get(i));
+            if (quasiColumns[i] < 0) {
+                throw new IllegalArgumentException("Quasi attribute "
+                        + secureAttributes.get(i) + " does not match any "
+                        + "attribute.");
+            }
+            quasiNumeric[i] = numericAttributes.get(quasiColumns[i]);
+            quasiSpellings.add(new ConcurrentHashMap<String, Integer>());
+            List<String> values = nominalValues.get(quasiColumns[i]);
+            if (values == null) {
+                quasiValueIndices.add(null);
+            } else {
+                HashMap<String, Integer> indices =
+                        new HashMap<String, Integer>();
+                for (int j = 0; j < values.size(); j++) {
+                    indices.put(values.get(j), j);
+                }
+                quasiValueIndices.add(indices);
+                //one more code for missing values
+                cardinalities[i] = values.size() + 1;
+            }
+        }
+        quasiKeys = new QuasiKeyEncoder(cardinalities);
+    }
+
+    /**
+     * Worker loop, counts the quasi ids of batches until the end of the data
+     *
+     * @param batches  batches of data lines
+     * @return frequency of the quasi ids counted by this worker
+     * @throws InterruptedException if interrupted while waiting for a batch
+     */
+    private QuasiFrequencies countBatches(BlockingQueue<List<String>> batches)
+            throws InterruptedException {
+        QuasiFrequencies frequencies = new QuasiFrequencies();
+        int lastColumn = 0;
+        for (int column : quasiColumns) {
+            lastColumn = Math.max(lastColumn, column);
+        }
+        int[] codes = new int[quasiColumns.length];
+        //keep taking batches after a failure so the reader is not blocked
+        RuntimeException failure = null;
+        List<String> batch;
+        while ((batch = batches.take()) != END_OF_DATA) {
+            if (failure != null) {
+                continue;
+            }
+            try {
+                for (String line : batch) {
+                    List<String> values = splitValues(line, lastColumn + 1);
+                    for (int i = 0; i < quasiColumns.length; i++) {
+                        codes[i] = getCode(i, values.get(quasiColumns[i]),
+                                line);
+                    }
+                    frequencies.add(quasiKeys.encode(codes));
+                }
+            } catch (RuntimeException ex) {
+                failure = ex;
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+        return frequencies;
+    }
+
+    /**
+     * Gets the code of a value of a quasi attribute
+     *
+     * @param attribute  position of the attribute in the quasi id
+     * @param value  the value as written in the data line
+     * @param line  the data line, for the error message
+     * @return code of the value
+     */
+    private int getCode(int attribute, String value, String line) {
+        HashMap<String, Integer> indices = quasiValueIndices.get(attribute);
+        if (indices == null) {
+            if (!quasiNumeric[attribute] || value.equals("?")) {
+                return quasiKeys.dictionaryCode(attribute, value);
+            }
+            //numbers that are equal share a code however they are written,
+            //each spelling is only parsed the first time it is seen
+            ConcurrentHashMap<String, Integer> spellings =
+                    quasiSpellings.get(attribute);
+            Integer code = spellings.get(value);
+            if (code == null) {
+                try {
+                    code = quasiKeys.dictionaryCode(attribute, QuasiKeyEncoder
+                            .canonical(Double.parseDouble(value)));
+                } catch (NumberFormatException ex) {
+                    throw new IllegalArgumentException("Value " + value
+                            + " of " + secureAttributes.get(attribute)
+                            + " is not a number, in line: " + line);
+                }
+                spellings.put(value, code);
+            }
+            return code;
+        }
+        if (value.equals("?")) {
+            return indices.size();
+        }
+        Integer index = indices.get(value);
+        if (index == null) {
+            throw new IllegalArgumentException("Value " + value + " of "
+                    + secureAttributes.get(attribute) + " is not declared, "
+                    + "in line: " + line);
+        }
+        return index;
+    }
+
+    /**
+     * Splits comma separated values, honouring quotes
+     *
+     * @param line  comma separated values
+     * @param limit  stop after this many values
+     * @return the unquoted values
+     */
+    static List<String> splitValues(String line, int limit) {
+        List<String> values = new ArrayList<String>();
+        int start = 0;
+        char quote = 0;
+        for (int i = 0; i < line.length() && values.size() < limit; i++) {
+            char c = line.charAt(i);
+            if (c == '\\') {
+                i++;
+            } else if (quote != 0) {
+                if (c == quote) {
+                    quote = 0;
+                }
+            } else if (c == '\'' || c == '"') {
+                quote = c;
+            } else if (c == ',') {
+                values.add(unquote(line.substring(start, i).trim()));
+                start = i + 1;
+            }
+        }
+        if (values.size() < limit) {
+            values.add(unquote(line.substring(start).trim()));
+        }
+        return values;
+    }
+
+    /**
+     * Removes the quotes and escapes around a value
+     *
+     * @param value  value as written in the file
+     * @return the value
+     */
+    static String unquote(String value) {
+        if (value.length() < 2 || (value.charAt(0) != '\''
+                && value.charAt(0) != '"')) {
+            return value;
+        }
+        StringBuilder unquoted = new StringBuilder();
+        for (int i = 1; i < value.length() - 1; i++) {
+            char c = value.charAt(i);
+            if (c == '\\' && i + 1 < value.length() - 1) {
+                i++;
+                c = value.charAt(i);
+            }
+            unquoted.append(c);
+        }
+        return unquoted.toString();
+    }
+
+    /**
+     * Prints the minimum group size, the distribution of the group sizes and
+     * the groups that violate k-anonymity
+     *
+     * @return does the file meet k-anonymity
+     */
+    public boolean report() {
+        System.out.printf("Records: %d, quasi ids: %d, minimum group size: "
+                + "%d\n", quasiFreq.numRecords(), quasiFreq.size(),
+                quasiFreq.minimum());
+
+        //number of groups and records by powers of two of the group size
+        int[] groups = new int[32];
+        long[] records = new long[32];
+        int violations = 0;
+        for (int slot = 0; slot < quasiFreq.capacity(); slot++) {
+            if (!quasiFreq.isUsed(slot)) {
+                continue;
+            }
+            int count = quasiFreq.countAt(slot);
+            int bucket = 31 - Integer.numberOfLeadingZeros(count);
+            groups[bucket]++;
+            records[bucket] = records[bucket] + count;
+            if (count < k_anonymity_constant) {
+                if (violations < MAX_PRINTED_GROUPS) {
+                    System.out.printf("Violating group of %d records: %s\n",
+                            count, describe(quasiFreq.keyAt(slot)));
+                }
+                violations++;
+            }
+        }
+        System.out.println("Group size distribution:");
+        for (int bucket = 0; bucket < groups.length; bucket++) {
+            if (groups[bucket] > 0) {
+                System.out.printf("\t%d-%d: %d groups, %d records\n",
+                        1L << bucket, (1L << (bucket + 1)) - 1,
+                        groups[bucket], records[bucket]);
+            }
+        }
+        if (violations > 0) {
+            System.out.printf("%d groups fail to meet %d anonymity\n",
+                    violations, k_anonymity_constant);
+        } else {
+            System.out.printf("Acheived %d anonymity\n", k_anonymity_constant);
+        }
+        return violations == 0;
+    }
+
+    /**
+     * @param key  key of a quasi id
+     * @return the quasi attribute values of the quasi id
+     */
+    private String describe(long key) {
+        int[] codes = quasiKeys.decode(key);
+        StringBuilder quasiset = new StringBuilder();
+        for (int i = 0; i < codes.length; i++) {
+            List<String> values = nominalValues.get(quasiColumns[i]);
+            Object value;
+            if (values == null) {
+                value = quasiKeys.dictionaryValue(i, codes[i]);
+            } else {
+                value = codes[i] < values.size() ? values.get(codes[i]) : "?";
+            }
+            if (i > 0) {
+                quasiset.append(", ");
+            }
+            quasiset.append(secureAttributes.get(i)).append('=').append(value);
+        }
+        return quasiset.toString();
+    }
+
+    /**
+     * Main method.
+     * Verifies that an anonymized arff file meets k-anonymity. Exits with
+     * status 1 if a group of records violates it
+     *
+     * @param args
+     *      args[0]: arff file to verify
+     *      args[1]: the k in k-anonymity
+     *      args[2]: (optional) comma separated quasi attributes, defaults to
+     *               the @secure tags of the file
+     *      args[3]: (optional) number of worker threads
+     */
+    public static void main(String[] args) {
+        File in = new File(args[0]);
+        int k = Integer.parseInt(args[1]);
+        List<String> quasiNames = new ArrayList<String>();
+        if (args.length > 2) {
+            for (String name : args[2].split(",")) {
+                quasiNames.add(name.trim());
+            }
+        }
+        int threads = args.length > 3 ? Integer.parseInt(args[3])
+                : Runtime.getRuntime().availableProcessors();
+
+        VerifyAnonymity verifier = new VerifyAnonymity(in, k, quasiNames,
+                threads);
+        boolean anonymous = false;
+        try {
+            long start = System.currentTimeMillis();
+            verifier.verify();
+            anonymous = verifier.report();
+            System.out.printf("Verified in %.1f s\n",
+                    (System.currentTimeMillis() - start) / 1000.0);
+        } catch (IOException ex) {
+            Logger.getLogger(VerifyAnonymity.class.getName()).log(Level.SEVERE,
+                    "Failed in reading the file to verify", ex);
+        } catch (Exception ex) {
+            Logger.getLogger(VerifyAnonymity.class.getName()).log(Level.SEVERE,
+                    "Failed in verifying the file", ex);
+        }
+        if (!anonymous) {
+            System.exit(1);
+        }
+    }
+}